@@ -38,9 +38,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This starter provides parsing and handling command line parameter
@@ -99,6 +107,16 @@ public class Starter {
      */
     private static boolean doMetrics;
 
+    /**
+     * Adaptive throttle for the requests against the vCenter
+     */
+    private static VmwareRequestThrottle throttle;
+
+    /**
+     * Worker threads for per-entity requests, the throttle limits how many of them hit the vCenter at once
+     */
+    private static ExecutorService executorService;
+
     /**
      * Main method to test if connection to a vCenter can established. It loads also a config.properties with
      * user credentials for vCenter to establish the connection using the ViJavaConnectionTest.
@@ -141,6 +159,7 @@ public class Starter {
 
         // Initialize connection with vCenter credentials
         ViJavaConnectTest viJavaConnectTest = new ViJavaConnectTest(host, user, pass);
+        throttle = viJavaConnectTest.getThrottle();
 
         // Try to establish the connection to vCenter
         try {
@@ -148,12 +167,14 @@ public class Starter {
 
             // Establish connection
             serviceInstance = viJavaConnectTest.connect();
+            executorService = Executors.newFixedThreadPool(throttle.getMaxLimit());
 
             // Give some information to test if connection and credentials work
             System.out.println("SUCCESS\n");
-            System.out.println("VMware API Type:         " + serviceInstance.getAboutInfo().apiType);
-            System.out.println("VMware API Version:      " + serviceInstance.getAboutInfo().apiVersion + " build " + serviceInstance.getAboutInfo().build);
-            System.out.println("VMware operating system: " + serviceInstance.getAboutInfo().getOsType() + "\n");
+            AboutInfo aboutInfo = getAboutInfo(serviceInstance);
+            System.out.println("VMware API Type:         " + aboutInfo.getApiType());
+            System.out.println("VMware API Version:      " + aboutInfo.getApiVersion() + " build " + aboutInfo.getBuild());
+            System.out.println("VMware operating system: " + aboutInfo.getOsType() + "\n");
 
             // Give some information about VMware systems
             System.out.println("Collect Host Systems");
@@ -164,6 +185,8 @@ public class Starter {
             System.out.println("------------------------");
             iterateVmwareVirtualMachines(serviceInstance);
 
+            System.out.println("\nRequest throttle: " + throttle);
+
         } catch (MalformedURLException e) {
             logger.error("Malformed URL exception occurred. Error message: '{}'", e.getMessage());
             logger.debug("Stack trace: '{}'", e.getStackTrace());
@@ -173,9 +196,19 @@ public class Starter {
         } catch (RemoteException e) {
             logger.error("Remote exception {} occurred. Error message: '{}'", e.getClass().getName(), e.getMessage());
             logger.debug("Stack trace: '{}'", e.getStackTrace());
+            logger.info("Request throttle: {}", throttle);
 
             // Connection not possible --> Error exit
             System.exit(1);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for vCenter requests");
+
+            // Diagnostics incomplete --> Error exit
+            System.exit(1);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
         }
 
         // Disconnect vCenter connection
@@ -187,11 +220,12 @@ public class Starter {
      *
      * @param serviceInstance {@link  com.vmware.vim25.mo.ServiceInstance} with established vCenter connection
      * @throws RemoteException
+     * @throws InterruptedException
      */
-    private static void iterateVmwareHostSystems(ServiceInstance serviceInstance) throws RemoteException {
+    private static void iterateVmwareHostSystems(ServiceInstance serviceInstance) throws RemoteException, InterruptedException {
         ManagedEntity[] vmwareHostSystems;
         // Search for system type on vCenter as ManagedEntity array
-        vmwareHostSystems = new InventoryNavigator(serviceInstance.getRootFolder()).searchManagedEntities(VMWARE_HOSTSYSTEM);
+        vmwareHostSystems = searchManagedEntities(serviceInstance, VMWARE_HOSTSYSTEM);
 
         System.out.println("Host systems found    : " + vmwareHostSystems.length);
 
@@ -202,42 +236,91 @@ public class Starter {
             System.out.println("Host performance      : " + vmwarePerformanceValues.getValue("rescpu.maxLimited1.latest"));
         }
 
-        // Display name for each virtual machine or host system
+        // Request the details of all host systems in parallel, the output keeps the inventory order
+        List<Future<List<String>>> hostSystemDetails = new ArrayList<Future<List<String>>>();
         for (ManagedEntity entity : vmwareHostSystems) {
-            HostSystem hostSystem = (HostSystem) entity;
+            final HostSystem hostSystem = (HostSystem) entity;
+            hostSystemDetails.add(executorService.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return getHostSystemDetails(hostSystem);
+                }
+            }));
+        }
+        printDetails(hostSystemDetails);
+    }
+
+    /**
+     * Requests name, power state and network information of a host system.
+     *
+     * @param hostSystem the host system to describe
+     * @return the output lines for the host system
+     * @throws RemoteException
+     * @throws InterruptedException
+     */
+    private static List<String> getHostSystemDetails(final HostSystem hostSystem) throws RemoteException, InterruptedException {
+        List<String> details = new ArrayList<String>();
 
+        details.add("  ├─ ESX name: " + getName(hostSystem));
 
-            System.out.println("  ├─ ESX name: " + hostSystem.getName());
-            System.out.println("  ├─── Power state    : " + hostSystem.getRuntime().getPowerState());
+        HostRuntimeInfo hostRuntimeInfo = throttle.execute("getRuntime", new VmwareRequestThrottle.Request<HostRuntimeInfo>() {
+            @Override
+            public HostRuntimeInfo execute() throws RemoteException {
+                return hostSystem.getRuntime();
+            }
+        });
+        details.add("  ├─── Power state    : " + hostRuntimeInfo.getPowerState());
 
-            HostNetworkSystem hostNetworkSystem = hostSystem.getHostNetworkSystem();
-            if (hostNetworkSystem != null) {
-                HostNetworkInfo hostNetworkInfo = hostNetworkSystem.getNetworkInfo();
+        final HostNetworkSystem hostNetworkSystem = throttle.execute("getHostNetworkSystem", new VmwareRequestThrottle.Request<HostNetworkSystem>() {
+            @Override
+            public HostNetworkSystem execute() throws RemoteException {
+                return hostSystem.getHostNetworkSystem();
+            }
+        });
+        if (hostNetworkSystem != null) {
+            HostNetworkInfo hostNetworkInfo = throttle.execute("getNetworkInfo", new VmwareRequestThrottle.Request<HostNetworkInfo>() {
+                @Override
+                public HostNetworkInfo execute() throws RemoteException {
+                    return hostNetworkSystem.getNetworkInfo();
+                }
+            });
 
-                HostVirtualNic[] hostVirtualNics = hostNetworkInfo.getConsoleVnic();
+            HostVirtualNic[] hostVirtualNics = hostNetworkInfo.getConsoleVnic();
+            if (hostVirtualNics != null) {
+                for (HostVirtualNic hostVirtualNic : hostVirtualNics) {
+                    details.add("  ├─── Console VNIC IP: " + hostVirtualNic.getSpec().getIp().getIpAddress());
+                }
+            } else {
+                details.add("  ├─── Console VNIC IP: not supported");
+                hostVirtualNics = hostNetworkInfo.getVnic();
                 if (hostVirtualNics != null) {
                     for (HostVirtualNic hostVirtualNic : hostVirtualNics) {
-                        System.out.println("  ├─── Console VNIC IP: " + hostVirtualNic.getSpec().getIp().getIpAddress());
+                        details.add("  ├─── Virtual NIC IP : " + hostVirtualNic.getSpec().getIp().getIpAddress());
                     }
                 } else {
-                    System.out.println("  ├─── Console VNIC IP: not supported");
-                    hostVirtualNics = hostNetworkInfo.getVnic();
-                    if (hostVirtualNics != null) {
-                        for (HostVirtualNic hostVirtualNic : hostVirtualNics) {
-                            System.out.println("  ├─── Virtual NIC IP : " + hostVirtualNic.getSpec().getIp().getIpAddress());
-                        }
-                    } else {
-                        System.out.println("  ├─── Virtual NIC IP : not supported");
-                    }
+                    details.add("  ├─── Virtual NIC IP : not supported");
                 }
-            } else {
-                System.out.println("  ├─── Network info   : not supported");
             }
+        } else {
+            details.add("  ├─── Network info   : not supported");
+        }
 
-            for (Network network : hostSystem.getNetworks()) {
-                System.out.println("  ├─── Network name   : " + network.getSummary().getName());
+        Network[] networks = throttle.execute("getNetworks", new VmwareRequestThrottle.Request<Network[]>() {
+            @Override
+            public Network[] execute() throws RemoteException {
+                return hostSystem.getNetworks();
             }
+        });
+        for (final Network network : networks) {
+            NetworkSummary networkSummary = throttle.execute("getSummary", new VmwareRequestThrottle.Request<NetworkSummary>() {
+                @Override
+                public NetworkSummary execute() throws RemoteException {
+                    return network.getSummary();
+                }
+            });
+            details.add("  ├─── Network name   : " + networkSummary.getName());
         }
+        return details;
     }
 
     /**
@@ -245,11 +328,12 @@ public class Starter {
      *
      * @param serviceInstance {@link  com.vmware.vim25.mo.ServiceInstance} with established vCenter connection
      * @throws RemoteException
+     * @throws InterruptedException
      */
-    private static void iterateVmwareVirtualMachines(ServiceInstance serviceInstance) throws RemoteException {
+    private static void iterateVmwareVirtualMachines(ServiceInstance serviceInstance) throws RemoteException, InterruptedException {
         ManagedEntity[] vmwareVirtualMachines;
         // Search for system type on vCenter as ManagedEntity array
-        vmwareVirtualMachines = new InventoryNavigator(serviceInstance.getRootFolder()).searchManagedEntities(VMWARE_VIRTUALMACHINE);
+        vmwareVirtualMachines = searchManagedEntities(serviceInstance, VMWARE_VIRTUALMACHINE);
 
         System.out.println("Virtual machines found: " + vmwareVirtualMachines.length);
 
@@ -260,10 +344,80 @@ public class Starter {
             System.out.println("VM performance        : " + vmwarePerformanceValues.getValue("rescpu.maxLimited1.latest"));
         }
 
-        // Display name for each virtual machine or host system
-        for (ManagedEntity entity : vmwareVirtualMachines) {
-            System.out.println("  ├─ VM name: " + entity.getName());
+        // Request the names of all virtual machines in parallel, the output keeps the inventory order
+        List<Future<List<String>>> virtualMachineDetails = new ArrayList<Future<List<String>>>();
+        for (final ManagedEntity entity : vmwareVirtualMachines) {
+            virtualMachineDetails.add(executorService.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return Collections.singletonList("  ├─ VM name: " + getName(entity));
+                }
+            }));
         }
+        printDetails(virtualMachineDetails);
+    }
+
+    /**
+     * Prints the output lines of the submitted entity requests in submission order.
+     *
+     * @param details the pending output lines per entity
+     * @throws RemoteException
+     * @throws InterruptedException
+     */
+    private static void printDetails(List<Future<List<String>>> details) throws RemoteException, InterruptedException {
+        for (Future<List<String>> future : details) {
+            try {
+                for (String line : future.get()) {
+                    System.out.println(line);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RemoteException) {
+                    throw (RemoteException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Requests the "about information" of a vCenter.
+     *
+     * @param serviceInstance {@link  com.vmware.vim25.mo.ServiceInstance} with established vCenter connection
+     * @return the about information
+     * @throws RemoteException
+     * @throws InterruptedException
+     */
+    private static AboutInfo getAboutInfo(final ServiceInstance serviceInstance) throws RemoteException, InterruptedException {
+        return throttle.execute("getAboutInfo", new VmwareRequestThrottle.Request<AboutInfo>() {
+            @Override
+            public AboutInfo execute() throws RemoteException {
+                return serviceInstance.getAboutInfo();
+            }
+        });
+    }
+
+    /**
+     * Requests the name of a managed entity.
+     *
+     * @param managedEntity the managed entity
+     * @return the name of the managed entity
+     * @throws RemoteException
+     * @throws InterruptedException
+     */
+    private static String getName(final ManagedEntity managedEntity) throws RemoteException, InterruptedException {
+        return throttle.execute("getName", new VmwareRequestThrottle.Request<String>() {
+            @Override
+            public String execute() throws RemoteException {
+                return managedEntity.getName();
+            }
+        });
     }
 
     /**
@@ -272,22 +426,35 @@ public class Starter {
      * @param managedEntity the managed entity to query
      * @return the perfomance values
      * @throws RemoteException
+     * @throws InterruptedException
      */
-    private static VmwarePerformanceValues queryPerformanceValues(ManagedEntity managedEntity, ServiceInstance serviceInstance) throws RemoteException {
+    private static VmwarePerformanceValues queryPerformanceValues(final ManagedEntity managedEntity, final ServiceInstance serviceInstance) throws RemoteException, InterruptedException {
 
         VmwarePerformanceValues vmwarePerformanceValues = new VmwarePerformanceValues();
 
-        int refreshRate = serviceInstance.getPerformanceManager().queryPerfProviderSummary(managedEntity).getRefreshRate();
+        int refreshRate = throttle.execute("queryPerfProviderSummary", new VmwareRequestThrottle.Request<Integer>() {
+            @Override
+            public Integer execute() throws RemoteException {
+                return serviceInstance.getPerformanceManager().queryPerfProviderSummary(managedEntity).getRefreshRate();
+            }
+        });
 
-        PerfQuerySpec perfQuerySpec = new PerfQuerySpec();
+        final PerfQuerySpec perfQuerySpec = new PerfQuerySpec();
         perfQuerySpec.setEntity(managedEntity.getMOR());
         perfQuerySpec.setMaxSample(1);
 
         perfQuerySpec.setIntervalId(refreshRate);
 
-        PerfEntityMetricBase[] perfEntityMetricBases = serviceInstance.getPerformanceManager().queryPerf(new PerfQuerySpec[]{perfQuerySpec});
+        PerfEntityMetricBase[] perfEntityMetricBases = throttle.execute("queryPerf", new VmwareRequestThrottle.Request<PerfEntityMetricBase[]>() {
+            @Override
+            public PerfEntityMetricBase[] execute() throws RemoteException {
+                return serviceInstance.getPerformanceManager().queryPerf(new PerfQuerySpec[]{perfQuerySpec});
+            }
+        });
 
         if (perfEntityMetricBases != null) {
+            Map<Integer, PerfCounterInfo> perfCounterInfoMap = getPerfCounterInfoMap(serviceInstance);
+
             for (PerfEntityMetricBase perfEntityMetricBase : perfEntityMetricBases) {
                 PerfMetricSeries[] perfMetricSeries = ((PerfEntityMetric) perfEntityMetricBase).getValue();
 
@@ -298,7 +465,7 @@ public class Starter {
 
                         if (longs.length == 1) {
 
-                            PerfCounterInfo perfCounterInfo = getPerfCounterInfoMap(serviceInstance).get(perfMetricSeries[j].getId().getCounterId());
+                            PerfCounterInfo perfCounterInfo = perfCounterInfoMap.get(perfMetricSeries[j].getId().getCounterId());
                             String instance = perfMetricSeries[j].getId().getInstance();
                             String name = getHumanReadableName(perfCounterInfo);
 
@@ -316,6 +483,24 @@ public class Starter {
         return vmwarePerformanceValues;
     }
 
+    /**
+     * Searches the inventory of a vCenter for managed entities of a given type using the request throttle.
+     *
+     * @param serviceInstance {@link  com.vmware.vim25.mo.ServiceInstance} with established vCenter connection
+     * @param type            the managed entity type, i.e. VirtualMachine or HostSystem
+     * @return the managed entities found
+     * @throws RemoteException
+     * @throws InterruptedException
+     */
+    private static ManagedEntity[] searchManagedEntities(final ServiceInstance serviceInstance, final String type) throws RemoteException, InterruptedException {
+        return throttle.execute("searchManagedEntities", new VmwareRequestThrottle.Request<ManagedEntity[]>() {
+            @Override
+            public ManagedEntity[] execute() throws RemoteException {
+                return new InventoryNavigator(serviceInstance.getRootFolder()).searchManagedEntities(type);
+            }
+        });
+    }
+
     /**
      * Generates a human-readable name for a performance counter.
      *
@@ -330,11 +515,18 @@ public class Starter {
      * This method retrieves the performance counters available.
      *
      * @return a map of performance counters
+     * @throws RemoteException
+     * @throws InterruptedException
      */
-    private static Map<Integer, PerfCounterInfo> getPerfCounterInfoMap(ServiceInstance serviceInstance) {
+    private static Map<Integer, PerfCounterInfo> getPerfCounterInfoMap(final ServiceInstance serviceInstance) throws RemoteException, InterruptedException {
         Map<Integer, PerfCounterInfo> perfCounterInfoMap = new HashMap<Integer, PerfCounterInfo>();
 
-        PerfCounterInfo[] perfCounterInfos = serviceInstance.getPerformanceManager().getPerfCounter();
+        PerfCounterInfo[] perfCounterInfos = throttle.execute("getPerfCounter", new VmwareRequestThrottle.Request<PerfCounterInfo[]>() {
+            @Override
+            public PerfCounterInfo[] execute() throws RemoteException {
+                return serviceInstance.getPerformanceManager().getPerfCounter();
+            }
+        });
 
         for (PerfCounterInfo perfCounterInfo : perfCounterInfos) {
             perfCounterInfoMap.put(perfCounterInfo.getKey(), perfCounterInfo);
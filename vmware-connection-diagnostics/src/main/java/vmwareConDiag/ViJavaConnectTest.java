@@ -76,6 +76,11 @@ public class ViJavaConnectTest {
      */
     private ServiceInstance serviceInstance = null;
 
+    /**
+     * Adaptive throttle for requests against the vCenter
+     */
+    private final VmwareRequestThrottle throttle = new VmwareRequestThrottle();
+
     /**
      * Constructor for creating a instance for a given server and credentials.
      *
@@ -125,6 +130,15 @@ public class ViJavaConnectTest {
         return false;
     }
 
+    /**
+     * Returns the adaptive throttle used for requests against the vCenter.
+     *
+     * @return the request throttle
+     */
+    public VmwareRequestThrottle getThrottle() {
+        return throttle;
+    }
+
     /**
      * Disconnects from the server.
      */
@@ -0,0 +1,529 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2026 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2026 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package vmwareConDiag;
+
+import com.vmware.vim25.HostCommunication;
+import com.vmware.vim25.RequestCanceled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>VmwareRequestThrottle class.</p>
+ * <p/>
+ * Adaptive concurrency limit for the requests passed to {@link #execute(String, Request)}. At most
+ * {@link #getLimit()} requests are executed at the same time, further callers wait for a free slot.
+ * <p/>
+ * The limit is raised additively while it is fully used and the request latency stays close to its baseline.
+ * It is lowered multiplicatively when the latency rises or a request fails because the vCenter is overloaded
+ * (AIMD). Requests started before the last decrease are ignored for further decreases, so a single congestion
+ * lowers the limit only once. Latency is tracked per operation, so expensive inventory searches are not
+ * compared against cheap property retrievals.
+ *
+ * @since 1.2-SNAPSHOT
+ */
+public class VmwareRequestThrottle {
+    /**
+     * A single request against the vCenter
+     *
+     * @param <T> the result type of the request
+     */
+    public interface Request<T> {
+        /**
+         * Executes the request.
+         *
+         * @return the result of the request
+         * @throws java.rmi.RemoteException
+         */
+        T execute() throws RemoteException;
+    }
+
+    /**
+     * Time source used to measure request latency
+     */
+    interface Clock {
+        /**
+         * Returns the current value of a monotonic time source.
+         *
+         * @return the current time in nanoseconds
+         */
+        long nanoTime();
+    }
+
+    /**
+     * Default concurrency limit to start with
+     */
+    public static final int DEFAULT_INITIAL_LIMIT = 2;
+
+    /**
+     * Default lower bound for the concurrency limit
+     */
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    /**
+     * Default upper bound for the concurrency limit
+     */
+    public static final int DEFAULT_MAX_LIMIT = 16;
+
+    /**
+     * Smoothed latency may exceed the baseline latency by this factor before backing off
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Additional latency in nanoseconds tolerated on top of the baseline, avoids backing off on jitter of
+     * sub-millisecond requests
+     */
+    private static final double LATENCY_SLACK_NANOS = 1000000.0;
+
+    /**
+     * Number of samples per operation before its latency is used to adjust the limit
+     */
+    private static final int LATENCY_WARMUP_SAMPLES = 3;
+
+    /**
+     * Weight of a new sample in the exponentially weighted moving average of the latency
+     */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /**
+     * Weight of a slower sample in the baseline latency, lets the baseline follow a permanently slower vCenter
+     */
+    private static final double BASELINE_DECAY = 0.01;
+
+    /**
+     * Multiplicative decrease factor applied if latency rises
+     */
+    private static final double LATENCY_BACKOFF = 0.9;
+
+    /**
+     * Multiplicative decrease factor applied on remote errors
+     */
+    private static final double ERROR_BACKOFF = 0.5;
+
+    /**
+     * Clock based on {@link System#nanoTime()}
+     */
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Initialize logging
+     */
+    private final Logger logger = LoggerFactory.getLogger(VmwareRequestThrottle.class);
+
+    /**
+     * Time source for latency measurement
+     */
+    private final Clock clock;
+
+    /**
+     * Lower bound for the concurrency limit
+     */
+    private final int minLimit;
+
+    /**
+     * Upper bound for the concurrency limit
+     */
+    private final int maxLimit;
+
+    /**
+     * Latency statistics per operation
+     */
+    private final Map<String, LatencyStatistics> latencyStatistics = new HashMap<String, LatencyStatistics>();
+
+    /**
+     * Current concurrency limit
+     */
+    private double limit;
+
+    /**
+     * Number of requests currently executed
+     */
+    private int inFlight = 0;
+
+    /**
+     * Sequence number of the last request started
+     */
+    private long startSequence = 0;
+
+    /**
+     * Sequence number of the last request started before the limit was lowered the last time
+     */
+    private long backoffSequence = 0;
+
+    /**
+     * Number of completed requests
+     */
+    private long requestCount = 0;
+
+    /**
+     * Number of requests failed with a remote error, including errors not caused by overload
+     */
+    private long errorCount = 0;
+
+    /**
+     * Constructor for creating a throttle with default limits.
+     */
+    public VmwareRequestThrottle() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Constructor for creating a throttle with the given limits.
+     *
+     * @param initialLimit the concurrency limit to start with
+     * @param minLimit     the lower bound for the concurrency limit
+     * @param maxLimit     the upper bound for the concurrency limit
+     */
+    public VmwareRequestThrottle(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, SYSTEM_CLOCK);
+    }
+
+    /**
+     * Constructor for creating a throttle with the given limits and time source.
+     *
+     * @param initialLimit the concurrency limit to start with
+     * @param minLimit     the lower bound for the concurrency limit
+     * @param maxLimit     the upper bound for the concurrency limit
+     * @param clock        the time source for latency measurement
+     */
+    VmwareRequestThrottle(int initialLimit, int minLimit, int maxLimit, Clock clock) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits: initial=" + initialLimit + ", min=" + minLimit + ", max=" + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+    }
+
+    /**
+     * Executes the given request as soon as the concurrency limit permits and adjusts the limit by the observed
+     * latency and outcome. Besides {@link java.rmi.RemoteException} a {@link RuntimeException} caused by a
+     * remote exception counts as remote error, VI Java property getters report failures this way. Only remote
+     * errors indicating an overloaded vCenter lower the limit, see {@link #isOverload(Throwable)}.
+     *
+     * @param operation the name of the operation, latency is tracked per operation
+     * @param request   the request to execute
+     * @return the result of the request
+     * @throws java.rmi.RemoteException
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public <T> T execute(String operation, Request<T> request) throws RemoteException, InterruptedException {
+        long sequence = acquire();
+
+        long start = clock.nanoTime();
+        try {
+            T result = request.execute();
+            onSuccess(operation, sequence, clock.nanoTime() - start);
+            return result;
+        } catch (RemoteException e) {
+            onError(operation, sequence, e);
+            throw e;
+        } catch (RuntimeException e) {
+            if (isRemoteError(e)) {
+                onError(operation, sequence, e);
+            }
+            throw e;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Waits until a further request is permitted by the current limit.
+     *
+     * @return the sequence number of the started request
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private synchronized long acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+        return ++startSequence;
+    }
+
+    /**
+     * Frees a request slot and wakes up waiting requests.
+     */
+    private synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Updates latency statistics and raises or lowers the limit.
+     *
+     * @param operation the name of the completed operation
+     * @param sequence  the sequence number of the completed request
+     * @param latency   latency of the completed request in nanoseconds
+     */
+    private synchronized void onSuccess(String operation, long sequence, long latency) {
+        requestCount++;
+
+        LatencyStatistics statistics = latencyStatistics.get(operation);
+        if (statistics == null) {
+            statistics = new LatencyStatistics();
+            latencyStatistics.put(operation, statistics);
+        }
+        statistics.add(latency);
+
+        if (statistics.isCongested()) {
+            backoff(LATENCY_BACKOFF, operation, sequence);
+        } else if (inFlight >= getLimit()) {
+            // Only grow a limit which is actually used, about one additional slot per window of requests
+            setLimit(limit + 1.0 / limit, operation);
+        }
+    }
+
+    /**
+     * Counts the failed request and lowers the limit if the vCenter is overloaded.
+     *
+     * @param operation the name of the failed operation
+     * @param sequence  the sequence number of the failed request
+     * @param exception the remote error
+     */
+    private synchronized void onError(String operation, long sequence, Exception exception) {
+        requestCount++;
+        errorCount++;
+        logger.debug("vCenter request '{}' failed: '{}'", operation, exception.getMessage());
+        if (isOverload(exception)) {
+            backoff(ERROR_BACKOFF, operation, sequence);
+        }
+    }
+
+    /**
+     * Lowers the limit, unless the request was started before the last decrease. Such a request was affected by
+     * the same congestion and would otherwise lower the limit again. The smoothed latencies restart from their
+     * baselines, so only requests started after the decrease can signal further congestion.
+     *
+     * @param factor    the multiplicative decrease factor
+     * @param operation the name of the operation causing the decrease
+     * @param sequence  the sequence number of the request causing the decrease
+     */
+    private void backoff(double factor, String operation, long sequence) {
+        if (sequence > backoffSequence) {
+            backoffSequence = startSequence;
+            for (LatencyStatistics statistics : latencyStatistics.values()) {
+                statistics.restart();
+            }
+            setLimit(limit * factor, operation);
+        }
+    }
+
+    /**
+     * Sets the limit within its bounds.
+     *
+     * @param newLimit  the new concurrency limit
+     * @param operation the name of the operation causing the change
+     */
+    private void setLimit(double newLimit, String operation) {
+        int oldLimit = getLimit();
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if (getLimit() != oldLimit) {
+            logger.debug("vCenter request limit changed from {} to {} after '{}'", oldLimit, getLimit(), operation);
+        }
+    }
+
+    /**
+     * Checks whether the given exception is or is caused by a remote exception.
+     *
+     * @param throwable the exception to check
+     * @return true, if a remote exception is part of the cause chain
+     */
+    private static boolean isRemoteError(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RemoteException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given exception indicates an overloaded vCenter. Faults like invalid properties or
+     * logins are remote errors too, but lowering the limit would not help.
+     *
+     * @param throwable the exception to check
+     * @return true, if a canceled request, a failed host communication or a socket error is part of the cause chain
+     */
+    private static boolean isOverload(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RequestCanceled || cause instanceof HostCommunication
+                    || cause instanceof SocketTimeoutException || cause instanceof SocketException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     *
+     * @return the number of requests allowed to run concurrently
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the upper bound for the concurrency limit.
+     *
+     * @return the maximum number of requests allowed to run concurrently
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Returns the number of requests currently executed.
+     *
+     * @return the number of requests in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the exponentially weighted moving average of the latency of an operation.
+     *
+     * @param operation the name of the operation
+     * @return the smoothed latency in microseconds or 0 if the operation was not completed yet
+     */
+    public synchronized long getSmoothedLatency(String operation) {
+        LatencyStatistics statistics = latencyStatistics.get(operation);
+        return statistics == null ? 0 : Math.round(statistics.smoothed / 1000.0);
+    }
+
+    /**
+     * Returns the baseline latency of an operation, the lowest latency observed slowly decaying towards
+     * slower samples.
+     *
+     * @param operation the name of the operation
+     * @return the baseline latency in microseconds or 0 if the operation was not completed yet
+     */
+    public synchronized long getBaselineLatency(String operation) {
+        LatencyStatistics statistics = latencyStatistics.get(operation);
+        return statistics == null ? 0 : Math.round(statistics.baseline / 1000.0);
+    }
+
+    /**
+     * Returns the number of completed requests.
+     *
+     * @return the number of successful and failed requests
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of requests failed with a remote error.
+     *
+     * @return the number of failed requests
+     */
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("limit=").append(getLimit()).append(", in flight=").append(inFlight)
+                .append(", requests=").append(requestCount).append(", errors=").append(errorCount);
+
+        for (String operation : new TreeMap<String, LatencyStatistics>(latencyStatistics).keySet()) {
+            stringBuilder.append(", ").append(operation).append("=").append(getSmoothedLatency(operation))
+                    .append("/").append(getBaselineLatency(operation)).append(" us");
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Latency statistics of a single operation
+     */
+    private static class LatencyStatistics {
+        /**
+         * Number of samples
+         */
+        private long samples = 0;
+
+        /**
+         * Exponentially weighted moving average of the latency in nanoseconds
+         */
+        private double smoothed;
+
+        /**
+         * Lowest latency in nanoseconds, slowly decaying towards slower samples
+         */
+        private double baseline;
+
+        /**
+         * Adds a latency sample.
+         *
+         * @param latency the latency in nanoseconds
+         */
+        private void add(long latency) {
+            if (samples++ == 0) {
+                smoothed = latency;
+                baseline = latency;
+            } else {
+                smoothed += LATENCY_SMOOTHING * (latency - smoothed);
+                baseline = latency < baseline ? latency : baseline + BASELINE_DECAY * (latency - baseline);
+            }
+        }
+
+        /**
+         * Restarts the smoothed latency from the baseline.
+         */
+        private void restart() {
+            smoothed = baseline;
+        }
+
+        /**
+         * Checks whether the smoothed latency exceeds the tolerated latency.
+         *
+         * @return true, if the operation became significantly slower than its baseline
+         */
+        private boolean isCongested() {
+            return samples > LATENCY_WARMUP_SAMPLES && smoothed > baseline * LATENCY_TOLERANCE + LATENCY_SLACK_NANOS;
+        }
+    }
+}
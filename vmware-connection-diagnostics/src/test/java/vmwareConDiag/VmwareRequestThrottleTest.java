@@ -0,0 +1,516 @@
+package vmwareConDiag;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.net.SocketTimeoutException;
+import java.rmi.RemoteException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for the adaptive vCenter request throttle.
+ */
+public class VmwareRequestThrottleTest
+    extends TestCase
+{
+    /**
+     * Clock advanced by the requests only
+     */
+    private ManualClock clock;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public VmwareRequestThrottleTest(String testName)
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( VmwareRequestThrottleTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        clock = new ManualClock();
+    }
+
+    /**
+     * Limit is only raised while all slots are used
+     */
+    public void testIncreaseLimitOnlyWhenUsed() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 1, 1, 8, clock );
+        for ( int i = 0; i < 200; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), throttle.execute( "get", new TimedRequest( i, 1000000L ) ) );
+        }
+        // One sequential caller uses a single slot only
+        assertEquals( 2, throttle.getLimit() );
+        assertEquals( 0, throttle.getInFlight() );
+        assertEquals( 200, throttle.getRequestCount() );
+        assertEquals( 0, throttle.getErrorCount() );
+    }
+
+    /**
+     * Limit is raised while concurrent requests use all slots
+     */
+    public void testIncreaseLimitWhenFullyUsed() throws Exception
+    {
+        final VmwareRequestThrottle throttle = new VmwareRequestThrottle( 2, 1, 8, clock );
+        throttle.execute( "outer", new VmwareRequestThrottle.Request<Void>()
+        {
+            @Override
+            public Void execute() throws RemoteException
+            {
+                try
+                {
+                    for ( int i = 0; i < 10; i++ )
+                    {
+                        throttle.execute( "inner", new TimedRequest( i, 1000000L ) );
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IllegalStateException( e );
+                }
+                return null;
+            }
+        } );
+        assertEquals( 3, throttle.getLimit() );
+    }
+
+    /**
+     * Limit is lowered when the latency of an operation rises above its baseline
+     */
+    public void testBackOffOnRisingLatency() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 1, 8, clock );
+        for ( int i = 0; i < 5; i++ )
+        {
+            throttle.execute( "get", new TimedRequest( i, 1000000L ) );
+        }
+        assertEquals( 8, throttle.getLimit() );
+        assertEquals( 1000, throttle.getBaselineLatency( "get" ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            throttle.execute( "get", new TimedRequest( i, 50000000L ) );
+        }
+        assertTrue( throttle.getLimit() < 8 );
+        assertEquals( 0, throttle.getErrorCount() );
+    }
+
+    /**
+     * Slow operations are not compared against the baseline of fast operations
+     */
+    public void testLatencyPerOperation() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 1, 8, clock );
+        for ( int i = 0; i < 20; i++ )
+        {
+            throttle.execute( "searchManagedEntities", new TimedRequest( i, 200000000L ) );
+            throttle.execute( "get", new TimedRequest( i, 3000000L ) );
+        }
+        assertEquals( 8, throttle.getLimit() );
+        assertEquals( 200000, throttle.getSmoothedLatency( "searchManagedEntities" ) );
+        assertEquals( 3000, throttle.getSmoothedLatency( "get" ) );
+    }
+
+    /**
+     * Jitter of sub-millisecond requests does not lower the limit
+     */
+    public void testSubMillisecondLatency() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 1, 8, clock );
+        for ( int i = 0; i < 5; i++ )
+        {
+            throttle.execute( "get", new TimedRequest( i, 100000L ) );
+        }
+        for ( int i = 0; i < 20; i++ )
+        {
+            throttle.execute( "get", new TimedRequest( i, 500000L ) );
+        }
+        assertEquals( 8, throttle.getLimit() );
+        assertTrue( throttle.getBaselineLatency( "get" ) < 500 );
+    }
+
+    /**
+     * Limit is lowered on each overload error of requests started after the last decrease, never below the minimum
+     */
+    public void testBackOffOnOverload() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 2, 8, clock );
+        executeFailing( throttle, overload() );
+        assertEquals( 4, throttle.getLimit() );
+
+        executeFailing( throttle, overload() );
+        assertEquals( 2, throttle.getLimit() );
+
+        executeFailing( throttle, overload() );
+        assertEquals( 2, throttle.getLimit() );
+        assertEquals( 0, throttle.getInFlight() );
+        assertEquals( 3, throttle.getErrorCount() );
+    }
+
+    /**
+     * Remote errors not caused by overload are counted but do not lower the limit
+     */
+    public void testNoBackOffOnOtherRemoteErrors() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 1, 8, clock );
+        for ( int i = 0; i < 5; i++ )
+        {
+            executeFailing( throttle, new RemoteException( "InvalidProperty" ) );
+        }
+        assertEquals( 8, throttle.getLimit() );
+        assertEquals( 5, throttle.getErrorCount() );
+    }
+
+    /**
+     * Runtime exceptions count as error only if caused by a remote exception
+     */
+    public void testRuntimeExceptions() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 1, 8, clock );
+        executeFailing( throttle, new IllegalStateException( "local failure" ) );
+        assertEquals( 0, throttle.getErrorCount() );
+        assertEquals( 8, throttle.getLimit() );
+
+        executeFailing( throttle, new RuntimeException( overload() ) );
+        assertEquals( 1, throttle.getErrorCount() );
+        assertEquals( 4, throttle.getLimit() );
+        assertEquals( 0, throttle.getInFlight() );
+    }
+
+    /**
+     * Concurrent requests failing for the same overload lower the limit only once
+     */
+    public void testBackOffOnceForConcurrentErrors() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 16, 1, 16, clock );
+        runConcurrently( throttle, 16, overload(), 0L );
+
+        assertEquals( 8, throttle.getLimit() );
+        assertEquals( 16, throttle.getErrorCount() );
+        assertEquals( 0, throttle.getInFlight() );
+
+        // A request started after the decrease signals a further overload
+        executeFailing( throttle, overload() );
+        assertEquals( 4, throttle.getLimit() );
+    }
+
+    /**
+     * Concurrent requests slowed down by the same congestion lower the limit only once
+     */
+    public void testBackOffOnceForConcurrentLatency() throws Exception
+    {
+        VmwareRequestThrottle throttle = new VmwareRequestThrottle( 8, 1, 8, clock );
+        for ( int i = 0; i < 5; i++ )
+        {
+            throttle.execute( "get", new TimedRequest( i, 1000000L ) );
+        }
+        runConcurrently( throttle, 8, null, 50000000L );
+
+        assertEquals( 7, throttle.getLimit() );
+        assertEquals( 0, throttle.getErrorCount() );
+
+        // Congestion persisting for requests started after the decrease lowers the limit again
+        throttle.execute( "get", new TimedRequest( 0, 50000000L ) );
+        assertEquals( 6, throttle.getLimit() );
+    }
+
+    /**
+     * Requests wait while all slots are used and continue as soon as a slot is released
+     */
+    public void testBlockAtLimit() throws Exception
+    {
+        final VmwareRequestThrottle throttle = new VmwareRequestThrottle( 1, 1, 1 );
+        final CountDownLatch firstStarted = new CountDownLatch( 1 );
+        final CountDownLatch firstRelease = new CountDownLatch( 1 );
+        final CountDownLatch secondStarted = new CountDownLatch( 1 );
+
+        Thread first = startThread( throttle, firstStarted, firstRelease );
+        assertTrue( firstStarted.await( 5, TimeUnit.SECONDS ) );
+
+        Thread second = startThread( throttle, secondStarted, new CountDownLatch( 0 ) );
+        assertFalse( secondStarted.await( 200, TimeUnit.MILLISECONDS ) );
+        assertEquals( 1, throttle.getInFlight() );
+
+        firstRelease.countDown();
+        assertTrue( secondStarted.await( 5, TimeUnit.SECONDS ) );
+
+        first.join( 5000 );
+        second.join( 5000 );
+        assertEquals( 0, throttle.getInFlight() );
+        assertEquals( 2, throttle.getRequestCount() );
+    }
+
+    /**
+     * Interrupting a waiting request is reported as interruption and not as remote error
+     */
+    public void testInterruptWhileWaiting() throws Exception
+    {
+        final VmwareRequestThrottle throttle = new VmwareRequestThrottle( 1, 1, 1 );
+        final CountDownLatch firstStarted = new CountDownLatch( 1 );
+        final CountDownLatch firstRelease = new CountDownLatch( 1 );
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread first = startThread( throttle, firstStarted, firstRelease );
+        assertTrue( firstStarted.await( 5, TimeUnit.SECONDS ) );
+
+        Thread second = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    throttle.execute( "get", new TimedRequest( 0, 0L ) );
+                }
+                catch ( Exception e )
+                {
+                    failure.set( e );
+                }
+            }
+        } );
+        second.start();
+        second.interrupt();
+        second.join( 5000 );
+
+        assertTrue( failure.get() instanceof InterruptedException );
+        assertEquals( 0, throttle.getErrorCount() );
+
+        firstRelease.countDown();
+        first.join( 5000 );
+        assertEquals( 0, throttle.getInFlight() );
+    }
+
+    /**
+     * Invalid limits are rejected
+     */
+    public void testInvalidLimits()
+    {
+        try
+        {
+            new VmwareRequestThrottle( 1, 2, 8 );
+            fail( "IllegalArgumentException expected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Creates a remote error as thrown by VI Java on a read timeout.
+     *
+     * @return the remote exception
+     */
+    private static RemoteException overload()
+    {
+        return new RemoteException( "VI SDK invoke exception", new SocketTimeoutException( "Read timed out" ) );
+    }
+
+    /**
+     * Executes requests holding all of them in flight until every request was started. Then the clock is
+     * advanced and the requests complete, optionally failing with the given exception.
+     *
+     * @param throttle  the throttle executing the requests
+     * @param count     the number of concurrent requests
+     * @param exception the exception thrown by each request or null
+     * @param latency   the latency in nanoseconds of all requests
+     */
+    private void runConcurrently( final VmwareRequestThrottle throttle, int count, final RemoteException exception,
+                                  long latency )
+        throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch( count );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch completed = new CountDownLatch( count );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        throttle.execute( "get", new VmwareRequestThrottle.Request<Void>()
+                        {
+                            @Override
+                            public Void execute() throws RemoteException
+                            {
+                                started.countDown();
+                                try
+                                {
+                                    release.await();
+                                }
+                                catch ( InterruptedException e )
+                                {
+                                    Thread.currentThread().interrupt();
+                                }
+                                if ( exception != null )
+                                {
+                                    throw exception;
+                                }
+                                return null;
+                            }
+                        } );
+                    }
+                    catch ( Exception e )
+                    {
+                        // expected for failing requests
+                    }
+                    finally
+                    {
+                        completed.countDown();
+                    }
+                }
+            } ).start();
+        }
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( count, throttle.getInFlight() );
+        clock.advance( latency );
+        release.countDown();
+        assertTrue( completed.await( 5, TimeUnit.SECONDS ) );
+    }
+
+    /**
+     * Executes a request failing with the given exception.
+     *
+     * @param throttle  the throttle executing the request
+     * @param exception the exception thrown by the request
+     */
+    private static void executeFailing( VmwareRequestThrottle throttle, final Exception exception )
+        throws InterruptedException
+    {
+        try
+        {
+            throttle.execute( "get", new VmwareRequestThrottle.Request<Void>()
+            {
+                @Override
+                public Void execute() throws RemoteException
+                {
+                    if ( exception instanceof RemoteException )
+                    {
+                        throw (RemoteException) exception;
+                    }
+                    throw (RuntimeException) exception;
+                }
+            } );
+            fail( "Exception expected" );
+        }
+        catch ( RemoteException e )
+        {
+            assertSame( exception, e );
+        }
+        catch ( RuntimeException e )
+        {
+            assertSame( exception, e );
+        }
+    }
+
+    /**
+     * Starts a thread executing a request which signals its start and waits for its release.
+     *
+     * @param throttle the throttle executing the request
+     * @param started  counted down as soon as the request is executed
+     * @param release  awaited before the request completes
+     * @return the started thread
+     */
+    private static Thread startThread( final VmwareRequestThrottle throttle, final CountDownLatch started,
+                                       final CountDownLatch release )
+    {
+        Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    throttle.execute( "get", new VmwareRequestThrottle.Request<Void>()
+                    {
+                        @Override
+                        public Void execute()
+                        {
+                            started.countDown();
+                            try
+                            {
+                                release.await();
+                            }
+                            catch ( InterruptedException e )
+                            {
+                                Thread.currentThread().interrupt();
+                            }
+                            return null;
+                        }
+                    } );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        } );
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Clock advanced manually
+     */
+    private static class ManualClock
+        implements VmwareRequestThrottle.Clock
+    {
+        private long nanos = 0;
+
+        @Override
+        public synchronized long nanoTime()
+        {
+            return nanos;
+        }
+
+        synchronized void advance( long duration )
+        {
+            nanos += duration;
+        }
+    }
+
+    /**
+     * Request returning a constant value after advancing the clock by its latency
+     */
+    private class TimedRequest
+        implements VmwareRequestThrottle.Request<Integer>
+    {
+        private final int value;
+
+        private final long latency;
+
+        TimedRequest( int value, long latency )
+        {
+            this.value = value;
+            this.latency = latency;
+        }
+
+        @Override
+        public Integer execute()
+        {
+            clock.advance( latency );
+            return value;
+        }
+    }
+}